@@ -4,31 +4,77 @@
  *   - Hugging Face Inference: https://api-inference.huggingface.co/models/{model} (PROVIDER=hf, HF_API_TOKEN, HF_MODEL)
  * Behavior:
  *   - Extract Error Highlights from combined logs.
+ *   - Optionally drop highlight lines that also appear in the last successful run of the same workflow/branch
+ *     (ANALYZER_DIFF_BASELINE=true); baseline fingerprints are cached per branch under .ci-analyzer-cache/.
  *   - If provider call fails (401/403/404/429/503...), fall back to rule-based analysis so PR still receives suggestions.
  *   - Post analysis to PR (or create Issue).
+ *   - Write logs/combined.cilz, a block-compressed seekable archive of the combined logs that also records the
+ *     analyzed tail window, highlight cap and baseline. Re-analyze one with
+ *     `java scripts/MultiProviderCiFailureAnalyzer.java --reanalyze logs/combined.cilz` (prints, posts nothing);
+ *     it reproduces the posted highlights and rule scores under the current rules.
  */
 import java.io.*;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.net.http.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
 import java.util.regex.*;
+import java.util.zip.*;
 
 public class MultiProviderCiFailureAnalyzer {
     private static final int BODY_MAX_CHARS = 60_000;
     private static final int LOG_MAX_CHARS = 120_000;
+    private static final Pattern HIGHLIGHT_PATTERN = Pattern.compile(
+            "\\b(error|err!|failed|failure|exception|traceback|no classdef|classnotfound|assertion(?:error)?|segmentation fault|build failed|gradle|maven|npm ERR!|yarn ERR!|test failed|cannot find symbol|undefined reference|stack trace|fatal:)\\b",
+            Pattern.CASE_INSENSITIVE
+    );
+    // Lower-case substrings of which every HIGHLIGHT_PATTERN match contains at least one; keep in sync with the pattern.
+    private static final List<String> HIGHLIGHT_KEYWORDS = List.of(
+            "error", "err!", "failed", "failure", "exception", "traceback", "no classdef", "classnotfound", "assertion",
+            "segmentation fault", "gradle", "maven", "cannot find symbol", "undefined reference", "stack trace", "fatal:"
+    );
+    private static final String TRUNCATION_MARKER = "...[truncated to last " + LOG_MAX_CHARS + " chars]...";
+    private static final Path BASELINE_CACHE_DIR = Paths.get(".ci-analyzer-cache");
+    private static final int BASELINE_CACHE_MAGIC = 0x43494246; // "CIBF"
+    private static final int NORMALIZATION_VERSION = 1;
+    private static final int ARCHIVE_MAGIC = 0x43494c5a; // "CILZ"
+    private static final int ARCHIVE_VERSION = 2;
+    private static final int ARCHIVE_BLOCK_BYTES = 64 * 1024;
+    private static final long ALL_BLOCKS = -1L;
 
     public static void main(String[] args) {
+        if (args.length > 0 && "--reanalyze".equals(args[0])) {
+            if (args.length != 2) {
+                System.err.println("Usage: java MultiProviderCiFailureAnalyzer.java --reanalyze <archive.cilz>");
+                System.exit(2);
+            }
+            try {
+                reanalyzeArchive(Paths.get(args[1]));
+            } catch (Exception e) {
+                System.err.println("Failed to re-analyze log archive " + args[1] + ": " + e);
+                System.exit(1);
+            }
+            return;
+        }
+        // Declared outside the try so the logs are archived even if a GitHub API call below fails.
+        int highlightMax = parseIntSafe(getenvOr("ANALYZER_MAX_HIGHLIGHTS", "200"), 200);
+        Baseline baseline = null;
+        boolean archived = false;
         try {
             // Basics
             String repo = requireEnv("REPO");
             String runId = requireEnv("RUN_ID");
             String workflowName = getenvOr("WORKFLOW_NAME", "(unknown)").trim();
             String serverUrl = getenvOr("SERVER_URL", "https://github.com").trim();
-            int highlightMax = parseIntSafe(getenvOr("ANALYZER_MAX_HIGHLIGHTS", "200"), 200);
             int llmMax = parseIntSafe(getenvOr("LLM_MAX_TOKENS", "800"), 800);
+            boolean differential = Boolean.parseBoolean(getenvOr("ANALYZER_DIFF_BASELINE", "false").trim());
 
             // Provider selection
             String provider = getenvOr("PROVIDER", "openrouter").trim().toLowerCase();
@@ -48,6 +94,7 @@ public class MultiProviderCiFailureAnalyzer {
             String headBranch = ghApiJq("repos/" + repo + "/actions/runs/" + runId, ".head_branch");
             String headSha = ghApiJq("repos/" + repo + "/actions/runs/" + runId, ".head_sha");
             String runConclusion = ghApiJq("repos/" + repo + "/actions/runs/" + runId, ".conclusion");
+            String workflowId = ghApiJq("repos/" + repo + "/actions/runs/" + runId, ".workflow_id");
 
             // PR number
             String prNumStr = ghApiJq("repos/" + repo + "/actions/runs/" + runId, "(.pull_requests[0].number // 0)");
@@ -76,10 +123,25 @@ public class MultiProviderCiFailureAnalyzer {
 
             // Logs and highlights
             String combinedLogs = readCombinedLogs();
-            String errorHighlights = extractErrorHighlights(combinedLogs, highlightMax);
+            if (differential && !isBlank(workflowId) && !isBlank(headBranch)) {
+                try {
+                    baseline = loadBaseline(repo, workflowId, headBranch);
+                } catch (Exception e) {
+                    System.err.println("Differential baseline unavailable, using all highlights: " + e.getMessage());
+                }
+            }
+            Highlights highlights = extractNovelHighlights(combinedLogs, highlightMax, baseline);
+            if (highlights.kept() == 0 && highlights.suppressed() > 0) {
+                // Everything matched the green run too; the failure cause is likely among the "noise", so show it all.
+                highlights = extractNovelHighlights(combinedLogs, highlightMax, null);
+                baseline = null;
+            }
+            String errorHighlights = highlights.text();
+            archiveCombinedLogs(highlightMax, baseline);
+            archived = true;
 
             // Context
-            String context = String.join("\n", List.of(
+            List<String> contextLines = new ArrayList<>(List.of(
                     "Repository: " + repo,
                     "Workflow: " + workflowName,
                     "Run ID: " + runId,
@@ -87,9 +149,11 @@ public class MultiProviderCiFailureAnalyzer {
                     "Event: " + event,
                     "Head branch: " + headBranch,
                     "Commit SHA: " + headSha,
-                    "Run conclusion: " + runConclusion,
-                    "Provider: " + provider
+                    "Run conclusion: " + runConclusion
             ));
+            if (baseline != null) contextLines.add("Baseline run: " + baseline.runId());
+            contextLines.add("Provider: " + provider);
+            String context = String.join("\n", contextLines);
 
             String prompt = buildPrompt(context, jobsSummary, errorHighlights);
 
@@ -122,8 +186,12 @@ public class MultiProviderCiFailureAnalyzer {
 
             body.append("Context:\n```\n").append(context).append("\n```\n\n");
             body.append("Failed jobs/steps summary:\n```\n").append(jobsSummary).append("\n```\n\n");
-            body.append("Error Highlights (first ").append(highlightMax).append(" matching lines):\n```txt\n")
-                    .append(errorHighlights).append("\n```\n\n");
+            body.append("Error Highlights (first ").append(highlightMax).append(" matching lines");
+            if (baseline != null) {
+                body.append(", ").append(highlights.suppressed())
+                        .append(" lines also seen in last successful run ").append(baseline.runId()).append(" omitted");
+            }
+            body.append("):\n```txt\n").append(errorHighlights).append("\n```\n\n");
             body.append("Analysis and suggestions:\n").append(analysis).append("\n");
 
             String finalBody = body.toString();
@@ -158,6 +226,7 @@ public class MultiProviderCiFailureAnalyzer {
 
         } catch (Exception e) {
             System.err.println("Failed to post LLM analysis: " + e);
+            if (!archived) archiveCombinedLogs(highlightMax, baseline);
             System.exit(0);
         }
     }
@@ -484,28 +553,543 @@ public class MultiProviderCiFailureAnalyzer {
         if (!Files.exists(p)) return "No combined logs were captured.";
         String text = Files.readString(p, StandardCharsets.UTF_8);
         if (text.length() > LOG_MAX_CHARS) {
-            text = "...[truncated to last " + LOG_MAX_CHARS + " chars]...\n" +
-                    text.substring(text.length() - LOG_MAX_CHARS);
+            text = TRUNCATION_MARKER + "\n" + text.substring(text.length() - LOG_MAX_CHARS);
         }
         return text;
     }
 
-    private static String extractErrorHighlights(String text, int maxLines) {
-        if (text == null || text.isBlank()) return "(no highlights)";
-        String[] lines = text.split("\\R");
-        Pattern re = Pattern.compile(
-                "\\b(error|err!|failed|failure|exception|traceback|no classdef|classnotfound|assertion(?:error)?|segmentation fault|build failed|gradle|maven|npm ERR!|yarn ERR!|test failed|cannot find symbol|undefined reference|stack trace|fatal:)\\b",
-                Pattern.CASE_INSENSITIVE
-        );
+    private record Highlights(String text, int kept, int suppressed) {}
+
+    /**
+     * First maxLines highlight lines, skipping lines whose fingerprint is in the baseline (if any).
+     * Suppressed lines are counted over the whole text, including past the cap.
+     */
+    private static Highlights extractNovelHighlights(String text, int maxLines, Baseline baseline) {
+        if (text == null || text.isBlank()) return new Highlights("(no highlights)", 0, 0);
+        HighlightCollector collector = new HighlightCollector(maxLines, baseline);
+        for (String ln : text.split("\\R")) {
+            if (!collector.test(ln)) break;
+        }
+        return collector.result();
+    }
+
+    /** Same as extractNovelHighlights over the live window of an archived run. */
+    private static Highlights extractNovelHighlights(LogArchive archive, int maxLines, Baseline baseline) throws IOException {
+        if (archive.window().blank()) return new Highlights("(no highlights)", 0, 0);
+        HighlightCollector collector = new HighlightCollector(maxLines, baseline);
+        scanLiveWindow(archive, collector);
+        return collector.result();
+    }
+
+    /** Consumes log lines in order; returns false once further lines cannot change the result. */
+    private static final class HighlightCollector implements Predicate<String> {
+        private final int maxLines;
+        private final Baseline baseline;
+        private final StringBuilder sb = new StringBuilder();
+        private int count;
+        private int suppressed;
+
+        HighlightCollector(int maxLines, Baseline baseline) {
+            this.maxLines = maxLines;
+            this.baseline = baseline;
+        }
+
+        @Override
+        public boolean test(String ln) {
+            if (HIGHLIGHT_PATTERN.matcher(ln).find()) {
+                if (baseline != null && baseline.contains(lineFingerprint(ln))) {
+                    suppressed++;
+                } else if (count < maxLines) {
+                    sb.append(ln).append("\n");
+                    count++;
+                }
+            }
+            return count < maxLines || baseline != null;
+        }
+
+        Highlights result() {
+            String out = count > 0 ? sb.toString().trim() : "(no lines matched common failure patterns)";
+            return new Highlights(out, count, suppressed);
+        }
+    }
+
+    // ----------------- Differential baseline -----------------
+
+    /** Sorted, de-duplicated 64-bit fingerprints of highlight lines from the last successful run. */
+    private record Baseline(String runId, long[] fingerprints) {
+        boolean contains(long fp) { return Arrays.binarySearch(fingerprints, fp) >= 0; }
+    }
+
+    private static final Pattern LOG_TIMESTAMP = Pattern.compile("^\\uFEFF?\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}(?:\\.\\d+)?Z\\s?");
+    private static final Pattern ANSI_ESCAPE = Pattern.compile("\u001B\\[[0-9;]*[A-Za-z]");
+    private static final Pattern VOLATILE_TOKEN = Pattern.compile("\\b(?=[0-9a-f]*\\d)[0-9a-f]{7,}\\b|\\d+", Pattern.CASE_INSENSITIVE);
+
+    /** Strips timestamps, colors, hashes and numbers so the same message hashes equally across runs. */
+    private static String normalizeLogLine(String line) {
+        String s = LOG_TIMESTAMP.matcher(line).replaceFirst("");
+        s = ANSI_ESCAPE.matcher(s).replaceAll("");
+        s = VOLATILE_TOKEN.matcher(s).replaceAll("#");
+        return s.replaceAll("\\s+", " ").trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static long lineFingerprint(String line) {
+        String s = normalizeLogLine(line);
+        long h = 0xcbf29ce484222325L; // FNV-1a 64
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static Baseline loadBaseline(String repo, String workflowId, String branch) throws IOException, InterruptedException {
+        String baselineRunId = ghApiJq("repos/" + repo + "/actions/workflows/" + workflowId + "/runs?status=success&per_page=1&branch="
+                + URLEncoder.encode(branch, StandardCharsets.UTF_8), "(.workflow_runs[0].id // \"\")");
+        if (isBlank(baselineRunId)) {
+            System.out.println("No successful run on branch " + branch + "; differential mode skipped.");
+            return null;
+        }
+        String key = (workflowId + "-" + branch).replaceAll("[^A-Za-z0-9._-]", "_") + "-" + Integer.toHexString(branch.hashCode());
+        Path cache = BASELINE_CACHE_DIR.resolve("baseline-" + key + ".bin");
+        Baseline cached = readBaselineCache(cache);
+        if (cached != null && cached.runId().equals(baselineRunId)) {
+            System.out.println("Using cached baseline sketch for run " + baselineRunId + " (" + cached.fingerprints().length + " lines)");
+            return cached;
+        }
+        Baseline fresh;
+        try (InputStream zip = openRunLogsZip(repo, baselineRunId)) {
+            fresh = new Baseline(baselineRunId, fingerprintLogsZip(zip));
+        }
+        try {
+            writeBaselineCache(cache, fresh);
+        } catch (IOException e) {
+            System.err.println("Could not cache baseline sketch: " + e.getMessage());
+        }
+        System.out.println("Built baseline sketch from run " + baselineRunId + " (" + fresh.fingerprints().length + " lines)");
+        return fresh;
+    }
+
+    /** Streams the run-level logs zip; the API answers with a redirect to pre-signed storage that must not get our token. */
+    private static InputStream openRunLogsZip(String repo, String runId) throws IOException, InterruptedException {
+        String apiUrl = getenvOr("API_URL", "https://api.github.com").trim();
+        String token = getenvOr("GH_TOKEN", getenvOr("GITHUB_TOKEN", "")).trim();
+        HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(20))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(apiUrl + "/repos/" + repo + "/actions/runs/" + runId + "/logs"))
+                .timeout(Duration.ofSeconds(120))
+                .header("Authorization", "Bearer " + token)
+                .header("Accept", "application/vnd.github+json")
+                .GET()
+                .build();
+        HttpResponse<InputStream> resp = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        Optional<String> location = resp.headers().firstValue("Location");
+        if (resp.statusCode() / 100 == 3 && location.isPresent()) {
+            resp.body().close();
+            HttpRequest follow = HttpRequest.newBuilder()
+                    .uri(URI.create(location.get()))
+                    .timeout(Duration.ofSeconds(120))
+                    .GET()
+                    .build();
+            resp = client.send(follow, HttpResponse.BodyHandlers.ofInputStream());
+        }
+        if (resp.statusCode() < 200 || resp.statusCode() >= 300) {
+            resp.body().close();
+            throw new IOException("Baseline log download failed: " + resp.statusCode());
+        }
+        return resp.body();
+    }
+
+    private static long[] fingerprintLogsZip(InputStream in) throws IOException {
+        long[] buf = new long[1024];
+        int n = 0;
+        try (ZipInputStream zip = new ZipInputStream(in, StandardCharsets.UTF_8)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.isDirectory() || !entry.getName().endsWith(".txt")) continue;
+                // Not closed on purpose: closing would close the zip stream; it ends at the entry boundary.
+                BufferedReader reader = new BufferedReader(new InputStreamReader(zip, StandardCharsets.UTF_8));
+                String ln;
+                while ((ln = reader.readLine()) != null) {
+                    if (!HIGHLIGHT_PATTERN.matcher(ln).find()) continue;
+                    if (n == buf.length) buf = Arrays.copyOf(buf, n * 2);
+                    buf[n++] = lineFingerprint(ln);
+                }
+            }
+        }
+        Arrays.sort(buf, 0, n);
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (unique == 0 || buf[i] != buf[unique - 1]) buf[unique++] = buf[i];
+        }
+        return Arrays.copyOf(buf, unique);
+    }
+
+    /** Sketches depend on the highlight pattern and normalization; a change to either invalidates the cache. */
+    private static int sketchVersion() {
+        return HIGHLIGHT_PATTERN.pattern().hashCode() * 31 + NORMALIZATION_VERSION;
+    }
+
+    private static Baseline readBaselineCache(Path p) {
+        if (!Files.exists(p)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(p)))) {
+            if (in.readInt() != BASELINE_CACHE_MAGIC || in.readInt() != sketchVersion()) return null;
+            String runId = in.readUTF();
+            long[] fps = new long[in.readInt()];
+            for (int i = 0; i < fps.length; i++) fps[i] = in.readLong();
+            return new Baseline(runId, fps);
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable baseline cache " + p + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeBaselineCache(Path p, Baseline b) throws IOException {
+        Files.createDirectories(p.getParent());
+        Path tmp = Files.createTempFile(p.getParent(), "baseline-", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(BASELINE_CACHE_MAGIC);
+            out.writeInt(sketchVersion());
+            out.writeUTF(b.runId());
+            out.writeInt(b.fingerprints().length);
+            for (long fp : b.fingerprints()) out.writeLong(fp);
+        }
+        Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // ----------------- Seekable log archive -----------------
+    //
+    // Layout: [deflate block 0][deflate block 1]...[footer][footer offset: long][version: int][magic: int]
+    // Footer: the highlight pattern (with flags) the keywords were indexed for; indexed keywords; the live window (first line/column of the LOG_MAX_CHARS tail, truncated and blank
+    // flags, highlight cap); the baseline the run was diffed against; then per block: first line number, line count,
+    // byte offset, compressed length, raw length and a 64-bit bitmap of the keywords occurring in the block.
+    // Every block is an independent deflate stream of whole '\n'-terminated lines (split like "\\R"), so blocks
+    // decode in any order.
+
+    private static final Pattern LINE_BREAK = Pattern.compile("\\R");
+
+    private record ArchiveBlock(long firstLine, int lineCount, long offset, int compressedLength, int rawLength, long keywordBits) {}
+
+    /** What the live run analyzed: the tail starting at firstLine/firstColumn, capped at maxHighlights lines. */
+    private record LiveWindow(long firstLine, int firstColumn, boolean truncated, boolean blank, int maxHighlights) {}
+
+    private record LogArchive(Path path, String indexedPattern, List<String> keywords, List<ArchiveBlock> blocks,
+                              LiveWindow window, Baseline baseline) {
+        /** True if the block bitmaps were built for the current HIGHLIGHT_PATTERN. */
+        boolean indexCurrent() {
+            return indexedPattern.equals(highlightSignature());
+        }
+
+        /**
+         * Keyword bits of which every highlight line sets at least one, or ALL_BLOCKS if the index cannot tell:
+         * after a HIGHLIGHT_PATTERN change, HIGHLIGHT_KEYWORDS may not cover the new pattern yet.
+         */
+        long highlightMask() {
+            if (!indexCurrent()) return ALL_BLOCKS;
+            long mask = 0;
+            for (String k : HIGHLIGHT_KEYWORDS) {
+                int bit = -1;
+                for (int i = 0; i < keywords.size() && bit < 0; i++) {
+                    if (k.contains(keywords.get(i))) bit = i;
+                }
+                if (bit < 0) return ALL_BLOCKS;
+                mask |= 1L << bit;
+            }
+            return mask;
+        }
+
+        /** Blocks that overlap the live window and may contain a highlight line, in file order. */
+        List<ArchiveBlock> candidateBlocks() {
+            long mask = highlightMask();
+            List<ArchiveBlock> out = new ArrayList<>();
+            for (ArchiveBlock b : blocks) {
+                if (b.firstLine() + b.lineCount() <= window.firstLine()) continue;
+                if (mask == ALL_BLOCKS || (b.keywordBits() & mask) != 0) out.add(b);
+            }
+            return out;
+        }
+    }
+
+    private static void archiveCombinedLogs(int maxHighlights, Baseline baseline) {
+        Path source = Paths.get("logs", "combined.txt");
+        if (!Files.exists(source)) return;
+        Path target = Paths.get("logs", "combined.cilz");
+        try {
+            writeLogArchive(Files.readString(source, StandardCharsets.UTF_8), target, maxHighlights, baseline);
+            System.out.println("Archived " + source + " (" + Files.size(source) + " bytes) to " + target
+                    + " (" + Files.size(target) + " bytes)");
+        } catch (IOException e) {
+            System.err.println("Could not write log archive: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints the highlights and rule-based analysis the live run would produce with the current rules: same tail
+     * window, same cap (unless ANALYZER_MAX_HIGHLIGHTS is set) and same baseline.
+     */
+    private static void reanalyzeArchive(Path path) throws IOException {
+        LogArchive archive = readLogArchive(path);
+        String cap = System.getenv("ANALYZER_MAX_HIGHLIGHTS");
+        int highlightMax = isBlank(cap) ? archive.window().maxHighlights() : parseIntSafe(cap, archive.window().maxHighlights());
+        Baseline baseline = archive.baseline();
+        Highlights highlights = extractNovelHighlights(archive, highlightMax, baseline);
+        if (highlights.kept() == 0 && highlights.suppressed() > 0) {
+            highlights = extractNovelHighlights(archive, highlightMax, null);
+            baseline = null;
+        }
+        if (!archive.indexCurrent()) {
+            System.out.println("Highlight pattern changed since " + path + " was written; its keyword index is not used.");
+        }
+        System.out.println("Archive " + path + ": " + archive.blocks().size() + " blocks, "
+                + archive.candidateBlocks().size() + " in the live window may contain highlights");
         StringBuilder sb = new StringBuilder();
-        int count = 0;
-        for (String ln : lines) {
-            if (re.matcher(ln).find()) {
-                sb.append(ln).append("\n");
-                if (++count >= maxLines) break;
+        sb.append("\nError Highlights (first ").append(highlightMax).append(" matching lines");
+        if (baseline != null) {
+            sb.append(", ").append(highlights.suppressed())
+                    .append(" lines also seen in last successful run ").append(baseline.runId()).append(" omitted");
+        }
+        sb.append("):\n").append(highlights.text()).append("\n\n");
+        sb.append("Analysis and suggestions:\n").append(ruleBasedAnalysis(highlights.text()));
+        System.out.println(sb);
+    }
+
+    private static String highlightSignature() {
+        return HIGHLIGHT_PATTERN.flags() + "/" + HIGHLIGHT_PATTERN.pattern();
+    }
+
+    private static long keywordBits(String line, List<String> keywords) {
+        String lower = line.toLowerCase(Locale.ROOT);
+        long bits = 0;
+        for (int i = 0; i < keywords.size(); i++) {
+            if (lower.contains(keywords.get(i))) bits |= 1L << i;
+        }
+        return bits;
+    }
+
+    private static void writeLogArchive(String text, Path target, int maxHighlights, Baseline baseline) throws IOException {
+        int windowStart = Math.max(0, text.length() - LOG_MAX_CHARS);
+        Path tmp = Files.createTempFile(target.toAbsolutePath().getParent(), "archive-", ".tmp");
+        try {
+            try (LogArchiveWriter out = new LogArchiveWriter(Files.newOutputStream(tmp), HIGHLIGHT_KEYWORDS)) {
+                Matcher br = LINE_BREAK.matcher(text);
+                long lineNo = 1;
+                int start = 0;
+                long windowLine = 0;
+                int windowColumn = 0;
+                while (true) {
+                    boolean more = br.find();
+                    int end = more ? br.start() : text.length();
+                    if (windowLine == 0 && windowStart <= end) {
+                        // A tail starting inside a line break begins, like split("\\R") on it, at the next line.
+                        windowLine = lineNo;
+                        windowColumn = Math.max(0, windowStart - start);
+                    }
+                    out.add(text.substring(start, end));
+                    if (!more) break;
+                    start = br.end();
+                    lineNo++;
+                }
+                out.finish(new LiveWindow(windowLine, windowColumn, windowStart > 0, text.isBlank(), maxHighlights), baseline);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static final class LogArchiveWriter implements Closeable {
+        private final DataOutputStream out;
+        private final List<String> keywords;
+        private final List<ArchiveBlock> blocks = new ArrayList<>();
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream(ARCHIVE_BLOCK_BYTES + 4096);
+        private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        private final byte[] chunk = new byte[16 * 1024];
+        private long position;
+        private long nextLine = 1;
+        private long blockFirstLine = 1;
+        private int blockLines;
+        private long blockBits;
+
+        LogArchiveWriter(OutputStream out, List<String> keywords) {
+            if (keywords.size() > Long.SIZE) throw new IllegalArgumentException("At most 64 keywords can be indexed");
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+            this.keywords = keywords;
+        }
+
+        void add(String line) throws IOException {
+            pending.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            long bits = keywordBits(line, keywords);
+            // Keywords out of sync with HIGHLIGHT_PATTERN must never hide a highlight: keep such a block unprunable.
+            if (bits == 0 && HIGHLIGHT_PATTERN.matcher(line).find()) bits = ALL_BLOCKS;
+            blockBits |= bits;
+            blockLines++;
+            nextLine++;
+            if (pending.size() >= ARCHIVE_BLOCK_BYTES) flushBlock();
+        }
+
+        private void flushBlock() throws IOException {
+            if (blockLines == 0) return;
+            long offset = position;
+            deflater.reset();
+            deflater.setInput(pending.toByteArray());
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                out.write(chunk, 0, n);
+                position += n;
+            }
+            blocks.add(new ArchiveBlock(blockFirstLine, blockLines, offset, (int) (position - offset), pending.size(), blockBits));
+            pending.reset();
+            blockFirstLine = nextLine;
+            blockLines = 0;
+            blockBits = 0;
+        }
+
+        /** Flushes the last block and writes the footer and trailer. */
+        void finish(LiveWindow window, Baseline baseline) throws IOException {
+            flushBlock();
+            long footerOffset = position;
+            out.writeUTF(highlightSignature());
+            out.writeInt(keywords.size());
+            for (String k : keywords) out.writeUTF(k);
+            out.writeLong(window.firstLine());
+            out.writeInt(window.firstColumn());
+            out.writeBoolean(window.truncated());
+            out.writeBoolean(window.blank());
+            out.writeInt(window.maxHighlights());
+            out.writeUTF(baseline != null ? baseline.runId() : "");
+            long[] fps = baseline != null ? baseline.fingerprints() : new long[0];
+            out.writeInt(fps.length);
+            for (long fp : fps) out.writeLong(fp);
+            out.writeInt(blocks.size());
+            for (ArchiveBlock b : blocks) {
+                out.writeLong(b.firstLine());
+                out.writeInt(b.lineCount());
+                out.writeLong(b.offset());
+                out.writeInt(b.compressedLength());
+                out.writeInt(b.rawLength());
+                out.writeLong(b.keywordBits());
+            }
+            out.writeLong(footerOffset);
+            out.writeInt(ARCHIVE_VERSION);
+            out.writeInt(ARCHIVE_MAGIC);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                deflater.end();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private static LogArchive readLogArchive(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < 16) throw new IOException("Not a log archive: " + path);
+            ByteBuffer trailer = readFully(ch, size - 16, 16);
+            long footerOffset = trailer.getLong();
+            int version = trailer.getInt();
+            if (trailer.getInt() != ARCHIVE_MAGIC) throw new IOException("Not a log archive: " + path);
+            if (version != ARCHIVE_VERSION) throw new IOException("Unsupported log archive version " + version + ": " + path);
+            if (footerOffset < 0 || footerOffset > size - 16) throw new IOException("Corrupt log archive footer: " + path);
+            ByteBuffer footer = readFully(ch, footerOffset, (int) (size - 16 - footerOffset));
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(footer.array()));
+            String indexedPattern = in.readUTF();
+            List<String> keywords = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) keywords.add(in.readUTF());
+            LiveWindow window = new LiveWindow(in.readLong(), in.readInt(), in.readBoolean(), in.readBoolean(), in.readInt());
+            String baselineRunId = in.readUTF();
+            long[] fps = new long[in.readInt()];
+            for (int i = 0; i < fps.length; i++) fps[i] = in.readLong();
+            Baseline baseline = baselineRunId.isEmpty() ? null : new Baseline(baselineRunId, fps);
+            List<ArchiveBlock> blocks = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                blocks.add(new ArchiveBlock(in.readLong(), in.readInt(), in.readLong(), in.readInt(), in.readInt(), in.readLong()));
+            }
+            return new LogArchive(path, indexedPattern, keywords, blocks, window, baseline);
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel ch, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, position + buf.position()) < 0) throw new EOFException("Truncated log archive");
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static List<String> decodeBlock(FileChannel ch, ArchiveBlock block) throws IOException {
+        ByteBuffer compressed = readFully(ch, block.offset(), block.compressedLength());
+        byte[] raw = new byte[block.rawLength()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array());
+            int n = 0;
+            while (n < raw.length && !inflater.finished()) {
+                int k = inflater.inflate(raw, n, raw.length - n);
+                if (k == 0 && inflater.needsInput()) break;
+                n += k;
+            }
+            if (n != raw.length) throw new IOException("Corrupt log archive block at offset " + block.offset());
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt log archive block at offset " + block.offset(), e);
+        } finally {
+            inflater.end();
+        }
+        // Every line is '\n'-terminated, so the last element is the empty remainder after the final terminator.
+        String[] parts = new String(raw, StandardCharsets.UTF_8).split("\n", -1);
+        if (parts.length - 1 != block.lineCount()) throw new IOException("Corrupt log archive block at offset " + block.offset());
+        return Arrays.asList(parts).subList(0, parts.length - 1);
+    }
+
+    /**
+     * Feeds the lines of the live window to the visitor in order, exactly as split("\\R") sees the truncated text,
+     * until it returns false. Only candidate blocks are read; they are decoded in parallel, a bounded window ahead.
+     */
+    private static void scanLiveWindow(LogArchive archive, Predicate<String> visitor) throws IOException {
+        LiveWindow window = archive.window();
+        if (window.truncated() && !visitor.test(TRUNCATION_MARKER)) return;
+        List<ArchiveBlock> blocks = archive.candidateBlocks();
+        if (blocks.isEmpty()) return;
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), blocks.size());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel ch = FileChannel.open(archive.path(), StandardOpenOption.READ)) {
+            Deque<Map.Entry<ArchiveBlock, Future<List<String>>>> inFlight = new ArrayDeque<>();
+            Iterator<ArchiveBlock> it = blocks.iterator();
+            while (it.hasNext() && inFlight.size() < threads * 2) {
+                ArchiveBlock b = it.next();
+                inFlight.add(Map.entry(b, pool.submit(() -> decodeBlock(ch, b))));
+            }
+            while (!inFlight.isEmpty()) {
+                Map.Entry<ArchiveBlock, Future<List<String>>> next = inFlight.poll();
+                List<String> lines = next.getValue().get();
+                if (it.hasNext()) {
+                    ArchiveBlock b = it.next();
+                    inFlight.add(Map.entry(b, pool.submit(() -> decodeBlock(ch, b))));
+                }
+                long lineNo = next.getKey().firstLine();
+                for (String ln : lines) {
+                    if (lineNo >= window.firstLine()) {
+                        if (lineNo == window.firstLine()) ln = ln.substring(Math.min(window.firstColumn(), ln.length()));
+                        if (!visitor.test(ln)) return;
+                    }
+                    lineNo++;
+                }
             }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decoding log archive", e);
+        } finally {
+            pool.shutdownNow();
         }
-        return count > 0 ? sb.toString().trim() : "(no lines matched common failure patterns)";
     }
 
     // ----------------- GH helpers & utils -----------------